@@ -0,0 +1,297 @@
+package com.wang.tinylimiter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * 基于 Count-Min Sketch 的按 key 限流器，适用于 IP 这类几乎无上限的 key 空间
+ * 所有 key 共享两张固定大小的计数表（当前窗口和上一个窗口），按滑动窗口近似估算每个 key 的请求数，内存占用与 key 的数量无关。
+ * 本次请求之前的估算值达到限流数一半的 key 被视为热点，晋升为独立的精确计数，并且不再写入计数表，避免拖高其他 key 的估算值。
+ * key 先由 hasher 算出 64 位 hash，每一行再混入构造时随机生成的种子来定位，不同行相互独立；
+ * 默认 hasher 对字符串使用带随机种子的 64 位 hash，其他类型使用 hashCode()，hashCode 容易冲突的 key 类型建议传入自定义 hasher。
+ * 精确计数与计数表使用同一组窗口（按 windowSize 对齐）和同一个滑动窗口估算公式，晋升前后限流的时间范围一致。
+ *
+ * @author wangjiabao
+ */
+public class CountMinSketchRateLimiter<K> {
+    /**
+     * 默认字符串 hash 的种子，每个 JVM 随机生成，外部无法预先构造冲突的 key
+     */
+    private static final long STRING_SEED = ThreadLocalRandom.current().nextLong();
+    /**
+     * 窗口大小（单位：ms）
+     */
+    private final Integer windowSize;
+    /**
+     * 每个 key 在窗口内的限流数
+     */
+    private final Integer limit;
+    /**
+     * 计数表的行数，每一行使用不同的 hash
+     */
+    private final Integer depth;
+    /**
+     * 计数表每一行的宽度
+     */
+    private final Integer width;
+    /**
+     * 最多晋升的热点 key 数量
+     */
+    private final Integer maxHeavyHitters;
+    /**
+     * 计算 key 的 64 位 hash
+     */
+    private final ToLongFunction<? super K> hasher;
+    /**
+     * 每一行的 hash 种子
+     */
+    private final long[] seeds;
+    /**
+     * 两张计数表，按窗口序号的奇偶交替使用，下标为 row * width + column
+     */
+    private final AtomicLongArray[] tables;
+    /**
+     * 当前窗口序号，即 currentTimeMillis / windowSize
+     */
+    private final AtomicLong currentWindow;
+    /**
+     * 已晋升为精确限流的热点 key
+     */
+    private final ConcurrentHashMap<K, HeavyHitter> heavyHitters;
+    /**
+     * 已占用的热点 key 名额，先占名额再晋升，保证热点 key 数量不超过 maxHeavyHitters
+     */
+    private final AtomicInteger heavyHitterCount;
+
+    public CountMinSketchRateLimiter(Integer windowSize, Integer limit, Integer depth, Integer width, Integer maxHeavyHitters) {
+        this(windowSize, limit, depth, width, maxHeavyHitters, CountMinSketchRateLimiter::defaultHash);
+    }
+
+    public CountMinSketchRateLimiter(Integer windowSize, Integer limit, Integer depth, Integer width, Integer maxHeavyHitters,
+                                     ToLongFunction<? super K> hasher) {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("depth <= 0 || width <= 0");
+        }
+        if (hasher == null) {
+            throw new IllegalArgumentException("hasher is null");
+        }
+        this.windowSize = windowSize;
+        this.limit = limit;
+        this.depth = depth;
+        this.width = width;
+        this.maxHeavyHitters = maxHeavyHitters;
+        this.hasher = hasher;
+        this.seeds = new long[depth];
+        for (int row = 0; row < depth; row++) {
+            this.seeds[row] = ThreadLocalRandom.current().nextLong();
+        }
+
+        this.tables = new AtomicLongArray[]{new AtomicLongArray(depth * width), new AtomicLongArray(depth * width)};
+        this.currentWindow = new AtomicLong(System.currentTimeMillis() / windowSize);
+        this.heavyHitters = new ConcurrentHashMap<>();
+        this.heavyHitterCount = new AtomicInteger(0);
+    }
+
+    /**
+     * 指定 key 是否允许通行
+     *
+     * @param key
+     * @return
+     */
+    public boolean allow(K key) {
+        long currentTime = System.currentTimeMillis();
+        long window = this.rotate(currentTime / windowSize);
+
+        long elapsed = currentTime - window * this.windowSize;
+
+        // 热点 key 直接走精确限流
+        HeavyHitter heavyHitter = this.heavyHitters.get(key);
+        if (heavyHitter != null) {
+            return heavyHitter.allow(window, elapsed);
+        }
+
+        // 每一行累加当前窗口计数，同时读取上一个窗口计数，各自取最小值
+        AtomicLongArray current = this.tables[(int) (window & 1)];
+        AtomicLongArray previous = this.tables[(int) ((window + 1) & 1)];
+        long hash = this.hasher.applyAsLong(key);
+        long currentCount = Long.MAX_VALUE;
+        long previousCount = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            int index = row * this.width + (int) Math.floorMod(mix(hash ^ this.seeds[row]), (long) this.width);
+            currentCount = Math.min(currentCount, current.incrementAndGet(index));
+            previousCount = Math.min(previousCount, previous.get(index));
+        }
+        // 滑动窗口近似：上一个窗口的计数按当前窗口剩余的比例计入
+        long estimate = currentCount + previousCount * (this.windowSize - elapsed) / this.windowSize;
+        // 按本次请求之前的估算值判断，限流数很小时第一次请求不会被晋升
+        if ((estimate - 1) * 2 < this.limit) {
+            return true;
+        }
+
+        // 之前的估算值达到限流数一半，晋升为热点 key，精确计数从计数表的估算值开始（不含本次请求）
+        if (this.reserveHeavyHitter()) {
+            HeavyHitter promoted = new HeavyHitter(this.windowSize, this.limit, window, currentCount - 1, previousCount);
+            heavyHitter = this.heavyHitters.putIfAbsent(key, promoted);
+            if (heavyHitter == null) {
+                heavyHitter = promoted;
+            } else {
+                // 其他线程已经晋升了这个 key，归还名额
+                this.heavyHitterCount.decrementAndGet();
+            }
+            return heavyHitter.allow(window, elapsed);
+        }
+        heavyHitter = this.heavyHitters.get(key);
+        if (heavyHitter != null) {
+            return heavyHitter.allow(window, elapsed);
+        }
+        // 热点 key 已满，只能按估算值限流
+        return estimate <= this.limit;
+    }
+
+    /**
+     * 当前热点 key 的数量
+     */
+    int heavyHitterSize() {
+        return this.heavyHitters.size();
+    }
+
+    /**
+     * 采用 CAS 占用一个热点 key 名额
+     *
+     * @return 是否占用成功
+     */
+    private boolean reserveHeavyHitter() {
+        while (true) {
+            int count = this.heavyHitterCount.get();
+            if (count >= this.maxHeavyHitters) {
+                return false;
+            }
+            if (this.heavyHitterCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 进入新窗口时清空过期的计数表，并淘汰一个完整窗口内没有访问的热点 key
+     *
+     * @param window 当前时间所在的窗口序号
+     * @return 生效的窗口序号
+     */
+    private long rotate(long window) {
+        long current = this.currentWindow.get();
+        if (window > current && this.currentWindow.compareAndSet(current, window)) {
+            // 只有 CAS 成功的线程负责清理，清理期间其他线程写入的少量计数可能丢失，对估算影响可以忽略
+            this.clear(this.tables[(int) (window & 1)]);
+            if (window - current >= 2) {
+                // 跨过了不止一个窗口，上一个窗口也没有计数
+                this.clear(this.tables[(int) ((window + 1) & 1)]);
+            }
+            Iterator<Map.Entry<K, HeavyHitter>> iterator = this.heavyHitters.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, HeavyHitter> entry = iterator.next();
+                if (entry.getValue().lastAccessWindow < window - 1
+                        && this.heavyHitters.remove(entry.getKey(), entry.getValue())) {
+                    // 淘汰后归还名额
+                    this.heavyHitterCount.decrementAndGet();
+                }
+            }
+            return window;
+        }
+        return this.currentWindow.get();
+    }
+
+    private void clear(AtomicLongArray table) {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, 0);
+        }
+    }
+
+    /**
+     * 默认 hasher：字符串按字符计算带随机种子的 64 位 hash（"Aa" 和 "BB" 这类 hashCode 相同的字符串不会冲突），其他类型使用 hashCode()
+     */
+    private static long defaultHash(Object key) {
+        if (key instanceof CharSequence) {
+            CharSequence chars = (CharSequence) key;
+            long hash = STRING_SEED;
+            for (int i = 0; i < chars.length(); i++) {
+                hash = (hash ^ chars.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(hash ^ chars.length());
+        }
+        return key.hashCode();
+    }
+
+    /**
+     * 64 位 hash 的混合函数（MurmurHash3 fmix64），打散所有位
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * 热点 key 的精确限流状态，窗口与计数表对齐
+     */
+    private static final class HeavyHitter {
+        private final Integer windowSize;
+        private final Integer limit;
+        /**
+         * 当前计数所在的窗口序号
+         */
+        private long window;
+        /**
+         * 当前窗口的请求数
+         */
+        private long currentCount;
+        /**
+         * 上一个窗口的请求数
+         */
+        private long previousCount;
+        /**
+         * 最近一次访问的窗口序号
+         */
+        private volatile long lastAccessWindow;
+
+        private HeavyHitter(Integer windowSize, Integer limit, long window, long currentCount, long previousCount) {
+            this.windowSize = windowSize;
+            this.limit = limit;
+            this.window = window;
+            this.currentCount = currentCount;
+            this.previousCount = previousCount;
+            this.lastAccessWindow = window;
+        }
+
+        /**
+         * 按与计数表相同的滑动窗口估算判断是否放行
+         *
+         * @param window  当前窗口序号
+         * @param elapsed 当前窗口已经过去的时间（单位：ms）
+         * @return
+         */
+        private synchronized boolean allow(long window, long elapsed) {
+            if (window > this.window) {
+                // 进入新窗口，只有相邻的上一个窗口还有效
+                this.previousCount = window == this.window + 1 ? this.currentCount : 0;
+                this.currentCount = 0;
+                this.window = window;
+            }
+            this.lastAccessWindow = window;
+            long estimate = this.currentCount + this.previousCount * (this.windowSize - elapsed) / this.windowSize;
+            if (estimate < this.limit) {
+                this.currentCount++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
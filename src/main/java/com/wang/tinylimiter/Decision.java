@@ -0,0 +1,66 @@
+package com.wang.tinylimiter;
+
+/**
+ * 限流决策结果，打包在一个 long 中避免分配对象
+ * 布局：[1 位是否放行][22 位剩余可通行数][41 位距离下一次可通行的微秒数]，后两项超出范围时取最大值。
+ * 等待时间按微秒向上取整保存，最大约 25 天，可以覆盖以 Integer 毫秒表示的任意窗口。
+ *
+ * @author wangjiabao
+ */
+public final class Decision {
+    /**
+     * 等待时间所占的位数
+     */
+    private static final int RETRY_BITS = 41;
+    /**
+     * 剩余可通行数所占的位数
+     */
+    private static final int REMAINING_BITS = 22;
+    /**
+     * 每微秒对应的纳秒数
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+    /**
+     * 可以表示的最大等待微秒数
+     */
+    private static final long MAX_RETRY_AFTER_MICROS = (1L << RETRY_BITS) - 1;
+    /**
+     * 可以表示的最大等待时间，约 25 天
+     */
+    public static final long MAX_RETRY_AFTER_NANOS = MAX_RETRY_AFTER_MICROS * NANOS_PER_MICRO;
+    /**
+     * 可以表示的最大剩余可通行数
+     */
+    public static final long MAX_REMAINING = (1L << REMAINING_BITS) - 1;
+
+    private Decision() {
+    }
+
+    /**
+     * 打包决策结果
+     *
+     * @param allowed         是否放行
+     * @param remaining       本次决策后剩余的可通行数
+     * @param retryAfterNanos 距离下一次可通行的纳秒数，还有剩余时为 0；按微秒向上取整，按提示重试不会早到
+     * @return
+     */
+    public static long of(boolean allowed, long remaining, long retryAfterNanos) {
+        long packedRemaining = Math.min(MAX_REMAINING, Math.max(0, remaining));
+        long retryAfter = Math.max(0, retryAfterNanos);
+        long retryAfterMicros = retryAfter / NANOS_PER_MICRO + (retryAfter % NANOS_PER_MICRO == 0 ? 0 : 1);
+        long packedRetry = Math.min(MAX_RETRY_AFTER_MICROS, retryAfterMicros);
+        return (allowed ? Long.MIN_VALUE : 0L) | (packedRemaining << RETRY_BITS) | packedRetry;
+    }
+
+    public static boolean isAllowed(long decision) {
+        return decision < 0;
+    }
+
+    public static long remaining(long decision) {
+        return (decision >>> RETRY_BITS) & MAX_REMAINING;
+    }
+
+    public static long retryAfterNanos(long decision) {
+        return (decision & MAX_RETRY_AFTER_MICROS) * NANOS_PER_MICRO;
+    }
+}
@@ -1,5 +1,6 @@
 package com.wang.tinylimiter;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -50,6 +51,47 @@ public class FixedWindowRateLimiter implements TinyLimiter{
         return this.count.incrementAndGet() <= limit;
     }
 
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        // 获取当前时间
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - startTime.get() >= windowSize) {
+            // 已经进入到了下一个窗口
+            this.reset(currentTime);
+        }
+        // CAS 一次性占用窗口内剩余的额度，不会像逐个 incrementAndGet 那样把计数推过 limit
+        while (true) {
+            long current = this.count.get();
+            int granted = (int) Math.max(0, Math.min(permits, limit - current));
+            if (granted == 0 || this.count.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    @Override
+    public long decide() {
+        // 获取当前时间
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - startTime.get() >= windowSize) {
+            // 已经进入到了下一个窗口
+            this.reset(currentTime);
+        }
+        while (true) {
+            long current = this.count.get();
+            boolean allowed = current < limit;
+            if (!allowed || this.count.compareAndSet(current, current + 1)) {
+                long remaining = allowed ? limit - current - 1 : 0;
+                // 额度用完时，需要等到当前窗口结束
+                long retryAfterMillis = remaining > 0 ? 0 : startTime.get() + windowSize - currentTime;
+                return Decision.of(allowed, remaining, TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            }
+        }
+    }
+
     private void reset(long currentTime) {
         // 采用 CAS 乐观锁的形式来更新，提升并发度
         this.count.compareAndSet(this.count.get(), 0);
@@ -6,17 +6,21 @@ package com.wang.tinylimiter;
  * @author wangjiabao
  */
 public class LeakyBucketRateLimiter implements TinyLimiter {
+    /**
+     * 每秒对应的纳秒数
+     */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
 
     /**
      * 每秒漏水速率
      */
     private Integer leakRatePerSec;
     /**
-     * 上次的漏水时间，毫秒时间戳
+     * 上次的漏水时间，System.nanoTime() 时间戳
      */
     private Long lastLeakTime;
     /**
-     * 时间间隔，单位：ms
+     * 每漏出一单位水的时间间隔（向上取整），单位 ns
      */
     private Long interval;
     /**
@@ -29,10 +33,13 @@ public class LeakyBucketRateLimiter implements TinyLimiter {
     private Integer currentWater;
 
     public LeakyBucketRateLimiter(Integer leakRatePerSec, Integer capacity) {
+        if (leakRatePerSec <= 0 || leakRatePerSec > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException("leakRatePerSec <= 0 || leakRatePerSec > " + NANOS_PER_SECOND);
+        }
         this.leakRatePerSec = leakRatePerSec;
         this.capacity = capacity;
-        this.interval = 1000L / leakRatePerSec;
-        this.lastLeakTime = System.currentTimeMillis();
+        this.interval = (NANOS_PER_SECOND + leakRatePerSec - 1) / leakRatePerSec;
+        this.lastLeakTime = System.nanoTime();
         this.currentWater = 0;
     }
 
@@ -48,14 +55,61 @@ public class LeakyBucketRateLimiter implements TinyLimiter {
         }
     }
 
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        synchronized (this) {
+            this.leakWater();
+            // 桶内剩余空间即本批次最多可放行的数量
+            int granted = Math.min(permits, this.capacity - this.currentWater);
+            this.currentWater += granted;
+            return granted;
+        }
+    }
+
+    @Override
+    public long decide() {
+        synchronized (this) {
+            this.leakWater();
+            boolean allowed = this.currentWater < this.capacity;
+            if (allowed) {
+                this.currentWater++;
+            }
+            int remaining = this.capacity - this.currentWater;
+            // 桶满时，需要等到下一次漏水才有空位
+            long retryAfterNanos = remaining > 0 ? 0 : this.lastLeakTime + this.interval - System.nanoTime();
+            return Decision.of(allowed, remaining, retryAfterNanos);
+        }
+    }
+
+    /**
+     * 每漏出一单位水的时间间隔，单位 ns
+     */
+    long intervalNanos() {
+        return this.interval;
+    }
+
     private void leakWater() {
-        long currentTimeMillis = System.currentTimeMillis();
-        if (currentTimeMillis < this.lastLeakTime) {
+        long currentTimeNanos = System.nanoTime();
+        long elapsed = currentTimeNanos - this.lastLeakTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        if (elapsed >= this.currentWater * this.interval) {
+            // 桶内的水已经全部漏完，从当前时间重新计时
+            this.currentWater = 0;
+            this.lastLeakTime = currentTimeNanos;
+            return;
+        }
+        // 距离上一次漏水，需要漏的水量，按纳秒计算以支持不能整除 1 秒或者超过每秒 1000 的速率
+        long needLeakWater = elapsed * this.leakRatePerSec / NANOS_PER_SECOND;
+        if (needLeakWater == 0) {
             return;
         }
-        // 距离上一次漏水，需要漏的水量
-        long needLeakWater = (currentTimeMillis - this.lastLeakTime) / this.interval;
-        this.currentWater = Math.max(0, this.currentWater - (int) needLeakWater);
-        this.lastLeakTime = currentTimeMillis;
+        this.currentWater -= (int) needLeakWater;
+        // 只推进到最后一次漏水的时间点，保留不足一单位水的部分
+        this.lastLeakTime += (needLeakWater * NANOS_PER_SECOND + this.leakRatePerSec - 1) / this.leakRatePerSec;
     }
 }
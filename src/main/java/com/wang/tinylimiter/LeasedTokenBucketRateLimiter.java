@@ -0,0 +1,191 @@
+package com.wang.tinylimiter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 租约令牌桶限流器
+ * 每个线程一次从共享令牌桶中批量租借 leaseSize 个 token，之后只在自己的租约上消费，大部分 allow() 不会触碰共享令牌桶和它的锁。
+ * 本地消费的开销是一次 ThreadLocal 查找、一次 System.currentTimeMillis()、一次 volatile 读和一次自己租约上无竞争的 CAS，
+ * CAS 是为了让其他线程可以安全地收回过期租约。
+ * 租约超时后剩余的 token 不再使用；续租时每个 leaseTimeout 最多由一个线程扫描一次所有租约，收回过期租约（包括已经空闲或退出的线程）的 token，
+ * 并移除已退出线程的租约，因此被租借而未使用的 token 不超过 leaseSize * 最近 leaseTimeout 内租借过的线程数。
+ *
+ * @author wangjiabao
+ */
+public class LeasedTokenBucketRateLimiter implements TinyLimiter {
+    /**
+     * 共享令牌桶
+     */
+    private final TokenBucketRateLimiter bucket;
+    /**
+     * 每次租借的 token 数量
+     */
+    private final Integer leaseSize;
+    /**
+     * 租约有效期，单位 ms
+     */
+    private final Long leaseTimeout;
+    /**
+     * 每个线程持有的租约
+     */
+    private final ThreadLocal<Lease> leases;
+    /**
+     * 所有线程的租约，用来收回过期租约中的 token
+     */
+    private final ConcurrentLinkedQueue<Lease> registry;
+    /**
+     * 上次扫描租约的时间，毫秒时间戳
+     */
+    private final AtomicLong lastScanTime;
+
+    public LeasedTokenBucketRateLimiter(Integer tokenPerSecond, Integer leaseSize, Long leaseTimeout) {
+        if (leaseSize <= 0 || leaseTimeout <= 0 || leaseSize > tokenPerSecond) {
+            throw new IllegalArgumentException("leaseSize <= 0 || leaseTimeout <= 0 || leaseSize > tokenPerSecond");
+        }
+        this.bucket = new TokenBucketRateLimiter(tokenPerSecond);
+        this.leaseSize = leaseSize;
+        this.leaseTimeout = leaseTimeout;
+        this.registry = new ConcurrentLinkedQueue<>();
+        this.lastScanTime = new AtomicLong(0);
+        this.leases = ThreadLocal.withInitial(() -> {
+            Lease lease = new Lease(Thread.currentThread());
+            this.registry.add(lease);
+            return lease;
+        });
+    }
+
+    @Override
+    public boolean allow() {
+        return this.allowUpTo(1) == 1;
+    }
+
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        Lease lease = this.leases.get();
+        long currentTimeMillis = System.currentTimeMillis();
+        // 优先消费本地租约
+        int granted = this.spend(lease, permits, currentTimeMillis);
+        if (granted == permits) {
+            return granted;
+        }
+        // 本地 token 不足，从共享令牌桶续租：补足本次缺口并额外租借 leaseSize 个
+        int need = permits - granted;
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) need + this.leaseSize);
+        // 先收回过期租约中的 token（每个 leaseTimeout 最多扫描一次），再从共享令牌桶续租
+        this.reclaimExpiredLeases(currentTimeMillis);
+        int leased = this.bucket.allowUpTo(wanted);
+        int used = Math.min(need, leased);
+        if (leased > used) {
+            // 先更新过期时间再放入 token，其他线程看到旧的过期时间最多是把 token 提前归还
+            lease.expireTime = currentTimeMillis + this.leaseTimeout;
+            lease.tokens.addAndGet(leased - used);
+        }
+        return granted + used;
+    }
+
+    @Override
+    public long decide() {
+        if (this.allowUpTo(1) == 1) {
+            // 剩余可通行数包括本地租约和共享令牌桶，都耗尽时由共享令牌桶给出下一个 token 的时间
+            long shared = this.bucket.probe();
+            long remaining = this.leases.get().tokens.get() + Decision.remaining(shared);
+            return Decision.of(true, remaining, remaining > 0 ? 0 : Decision.retryAfterNanos(shared));
+        }
+        // 本地租约和共享令牌桶都已耗尽，由共享令牌桶给出下一个 token 的时间
+        return this.bucket.decide();
+    }
+
+    /**
+     * 从租约中消费 token，租约已过期则把剩余 token 归还共享令牌桶
+     *
+     * @param lease
+     * @param permits
+     * @param currentTimeMillis
+     * @return 实际消费的数量
+     */
+    private int spend(Lease lease, int permits, long currentTimeMillis) {
+        if (currentTimeMillis >= lease.expireTime) {
+            this.reclaim(lease);
+            return 0;
+        }
+        // 租约只有所属线程消费，这里的 CAS 没有竞争；失败只可能是其他线程正在收回过期租约
+        while (true) {
+            long tokens = lease.tokens.get();
+            int granted = (int) Math.min(permits, tokens);
+            if (granted == 0 || lease.tokens.compareAndSet(tokens, tokens - granted)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * 收回所有过期租约中的 token，并清理已退出线程的租约
+     * 采用 CAS 更新扫描时间，每个 leaseTimeout 最多只有一个线程扫描，过载时续租的开销不随线程数增长
+     *
+     * @param currentTimeMillis
+     */
+    private void reclaimExpiredLeases(long currentTimeMillis) {
+        long last = this.lastScanTime.get();
+        if (currentTimeMillis - last < this.leaseTimeout || !this.lastScanTime.compareAndSet(last, currentTimeMillis)) {
+            return;
+        }
+        long reclaimed = 0;
+        Iterator<Lease> iterator = this.registry.iterator();
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+            boolean alive = lease.owner.isAlive();
+            if (!alive || currentTimeMillis >= lease.expireTime) {
+                reclaimed += lease.tokens.getAndSet(0);
+            }
+            if (!alive) {
+                iterator.remove();
+            }
+        }
+        // 一次性归还，只加一次共享令牌桶的锁
+        if (reclaimed > 0) {
+            this.bucket.returnToken(reclaimed);
+        }
+    }
+
+    /**
+     * 当前登记的租约数量
+     */
+    int leaseCount() {
+        return this.registry.size();
+    }
+
+    private void reclaim(Lease lease) {
+        long tokens = lease.tokens.getAndSet(0);
+        if (tokens > 0) {
+            this.bucket.returnToken(tokens);
+        }
+    }
+
+    /**
+     * 线程租约，只有所属线程消费，其他线程只会收回过期的 token
+     */
+    private static final class Lease {
+        /**
+         * 租约所属线程
+         */
+        private final Thread owner;
+        /**
+         * 剩余可用的 token 数量
+         */
+        private final AtomicLong tokens;
+        /**
+         * 租约过期时间，毫秒时间戳
+         */
+        private volatile long expireTime;
+
+        private Lease(Thread owner) {
+            this.owner = owner;
+            this.tokens = new AtomicLong(0);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.wang.tinylimiter;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 限流的响应式流处理器
+ * 不丢弃数据，而是按限流器发放的通行数向上游 request(n)：上游只会收到被限流器放行的需求，适合配合令牌桶或漏桶使用。
+ * 已请求但未交付给下游的数据不超过 batchSize，消费到一半时才会再次批量向上游请求；
+ * 限流器发放的通行数不足半个批次时先攒着，按 {@link TinyLimiter#decide()} 给出的等待时间和限流器的速率算出攒够的时间点，
+ * 到时一次性请求，持续限流时也不会退化成逐个 request(1)。
+ *
+ * @author wangjiabao
+ */
+public class RateLimitedProcessor<T> implements Flow.Processor<T, T> {
+    /**
+     * 限流器
+     */
+    private final TinyLimiter limiter;
+    /**
+     * 限流器每发放一个通行数的时间间隔，单位 ns
+     */
+    private final long intervalNanos;
+    /**
+     * 向上游请求的最大批次，也是缓冲区的上限
+     */
+    private final Integer batchSize;
+    /**
+     * 用来在限流器补充通行数后再次请求上游
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * 已从上游收到、尚未交付给下游的数据
+     */
+    private final ConcurrentLinkedQueue<T> queue;
+    /**
+     * 下游订阅者，只支持一个
+     */
+    private final AtomicReference<Flow.Subscriber<? super T>> downstream;
+    /**
+     * 下游累计请求的数量，达到 Long.MAX_VALUE 视为无限
+     */
+    private final AtomicLong requested;
+    /**
+     * 保证同一时刻只有一个线程在 drain
+     */
+    private final AtomicInteger wip;
+    /**
+     * 是否已经安排了定时请求
+     */
+    private final AtomicBoolean refillScheduled;
+    /**
+     * 上游订阅
+     */
+    private volatile Flow.Subscription upstream;
+    /**
+     * 上游是否已经结束
+     */
+    private volatile boolean done;
+    /**
+     * 上游的异常
+     */
+    private volatile Throwable error;
+    /**
+     * 需要立即终止下游的异常：下游的非法 request 参数，或者无法安排定时请求
+     */
+    private volatile Throwable failure;
+    /**
+     * 下游是否已经取消
+     */
+    private volatile boolean cancelled;
+    /**
+     * 累计交付给下游的数量，只在 drain 中访问
+     */
+    private long delivered;
+    /**
+     * 累计向上游请求的数量，只在 drain 中访问
+     */
+    private long issued;
+    /**
+     * 已从限流器拿到、还没有向上游请求的通行数，只在 drain 中访问
+     */
+    private long banked;
+
+    public RateLimitedProcessor(TokenBucketRateLimiter limiter, Integer batchSize, ScheduledExecutorService scheduler) {
+        this(limiter, limiter.intervalNanos(), batchSize, scheduler);
+    }
+
+    public RateLimitedProcessor(LeakyBucketRateLimiter limiter, Integer batchSize, ScheduledExecutorService scheduler) {
+        this(limiter, limiter.intervalNanos(), batchSize, scheduler);
+    }
+
+    private RateLimitedProcessor(TinyLimiter limiter, long intervalNanos, Integer batchSize, ScheduledExecutorService scheduler) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize <= 0");
+        }
+        this.limiter = limiter;
+        this.intervalNanos = intervalNanos;
+        this.batchSize = batchSize;
+        this.scheduler = scheduler;
+
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.downstream = new AtomicReference<>();
+        this.requested = new AtomicLong(0);
+        this.wip = new AtomicInteger(0);
+        this.refillScheduled = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!this.downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("RateLimitedProcessor only supports one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    failure = new IllegalArgumentException("non-positive request: " + n);
+                } else {
+                    requested.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        });
+        this.drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (this.upstream != null || this.cancelled) {
+            subscription.cancel();
+            return;
+        }
+        this.upstream = subscription;
+        this.drain();
+    }
+
+    @Override
+    public void onNext(T item) {
+        this.queue.offer(Objects.requireNonNull(item));
+        this.drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.error = Objects.requireNonNull(throwable);
+        this.done = true;
+        this.drain();
+    }
+
+    @Override
+    public void onComplete() {
+        this.done = true;
+        this.drain();
+    }
+
+    /**
+     * 把缓冲的数据交付给下游，并按需向上游请求
+     */
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super T> subscriber = this.downstream.get();
+            if (subscriber != null) {
+                if (this.cancelled) {
+                    this.queue.clear();
+                    return;
+                }
+                if (this.failure != null) {
+                    this.cancelled = true;
+                    this.queue.clear();
+                    Flow.Subscription subscription = this.upstream;
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                    subscriber.onError(this.failure);
+                    return;
+                }
+                long r = this.requested.get();
+                while (this.delivered != r && !this.cancelled) {
+                    T item = this.queue.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    subscriber.onNext(item);
+                    this.delivered++;
+                }
+                // 先读 done 再判断队列，保证上游的最后一个数据已经入队
+                if (this.done && this.queue.isEmpty()) {
+                    this.cancelled = true;
+                    if (this.error != null) {
+                        subscriber.onError(this.error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                this.requestUpstream(r);
+                if (this.failure != null) {
+                    // 交给下一轮循环终止下游
+                    continue;
+                }
+            }
+            missed = this.wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按限流器发放的通行数向上游请求数据
+     *
+     * @param r 下游累计请求的数量
+     */
+    private void requestUpstream(long r) {
+        Flow.Subscription subscription = this.upstream;
+        if (subscription == null || this.done || this.cancelled || this.refillScheduled.get()) {
+            return;
+        }
+        // 已请求但未交付的数据还超过一半批次时先不请求，避免每个数据都触发一次 request
+        long inflight = this.issued - this.delivered;
+        if (inflight * 2 > this.batchSize) {
+            return;
+        }
+        long want = Math.min(this.batchSize - inflight, r - this.delivered - inflight);
+        if (want <= 0) {
+            return;
+        }
+        if (this.banked < want) {
+            this.banked += this.limiter.allowUpTo((int) (want - this.banked));
+        }
+        // 至少攒够半个批次（下游需求更少时以需求为准）再请求上游
+        long minBatch = Math.min(want, Math.max(1, this.batchSize / 2));
+        if (this.banked < minBatch) {
+            // decide 给出下一个通行数的时间，之后每个 interval 再补充一个；恰好补充了一个则先攒着
+            long decision = this.limiter.decide();
+            if (Decision.isAllowed(decision)) {
+                this.banked++;
+            }
+            if (this.banked < minBatch) {
+                long missing = minBatch - this.banked;
+                this.scheduleRefill(Decision.retryAfterNanos(decision) + (missing - 1) * this.intervalNanos);
+                return;
+            }
+        }
+        long permits = this.banked;
+        this.banked = 0;
+        this.issued += permits;
+        subscription.request(permits);
+    }
+
+    private void scheduleRefill(long delayNanos) {
+        if (this.refillScheduled.compareAndSet(false, true)) {
+            try {
+                this.scheduler.schedule(() -> {
+                    this.refillScheduled.set(false);
+                    this.drain();
+                }, Math.max(1, delayNanos), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // 不能把异常抛给上游的 onNext 或下游的 request，由 drain 取消上游并通知下游
+                this.failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.wang.tinylimiter;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多进程共享的固定窗口限流器
+ * 同一台机器上的多个 JVM 使用同一个文件、同一个名称即可共享同一个窗口计数，参数与已有窗口不一致时构造会失败。
+ *
+ * @author wangjiabao
+ */
+public class SharedFixedWindowRateLimiter implements TinyLimiter {
+    /**
+     * 固定窗口大小（单位：ms）
+     */
+    private final Integer windowSize;
+    /**
+     * 固定窗口限流数
+     */
+    private final Integer limit;
+    /**
+     * 共享状态文件
+     */
+    private final SharedMemoryFile file;
+    /**
+     * 当前限流器在共享文件中的 slot
+     */
+    private final int slot;
+
+    public SharedFixedWindowRateLimiter(Path path, String name, Integer windowSize, Integer limit) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize <= 0");
+        }
+        if (limit < 0 || limit > SharedMemoryFile.MAX_COUNT) {
+            throw new IllegalArgumentException("limit < 0 || limit > " + SharedMemoryFile.MAX_COUNT);
+        }
+        this.windowSize = windowSize;
+        this.limit = limit;
+        this.file = new SharedMemoryFile(path);
+        this.slot = this.file.slot("fixed-window:" + name, ((long) windowSize << 32) | limit);
+    }
+
+    @Override
+    public boolean allow() {
+        return this.allowUpTo(1) == 1;
+    }
+
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        long currentTime = System.currentTimeMillis();
+        while (true) {
+            long state = this.file.get(this.slot);
+            long current = this.rollWindow(state, currentTime);
+            long count = SharedMemoryFile.count(current);
+            int granted = (int) Math.max(0, Math.min(permits, this.limit - count));
+            long update = SharedMemoryFile.pack(SharedMemoryFile.time(current), count + granted);
+            // 状态没有变化时不写共享内存，减少跨进程的 cache line 争用
+            if (update == state || this.file.compareAndSet(this.slot, state, update)) {
+                return granted;
+            }
+        }
+    }
+
+    @Override
+    public long decide() {
+        long currentTime = System.currentTimeMillis();
+        while (true) {
+            long state = this.file.get(this.slot);
+            long current = this.rollWindow(state, currentTime);
+            long count = SharedMemoryFile.count(current);
+            long startTime = SharedMemoryFile.time(current);
+            boolean allowed = count < this.limit;
+            long update = allowed ? SharedMemoryFile.pack(startTime, count + 1) : current;
+            if (update == state || this.file.compareAndSet(this.slot, state, update)) {
+                long remaining = allowed ? this.limit - count - 1 : 0;
+                // 额度用完时，需要等到当前窗口结束
+                long retryAfterMillis = remaining > 0 ? 0 : startTime + this.windowSize - currentTime;
+                return Decision.of(allowed, remaining, TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            }
+        }
+    }
+
+    /**
+     * 计算当前时间所在窗口的状态
+     *
+     * @param state
+     * @param currentTime
+     * @return
+     */
+    private long rollWindow(long state, long currentTime) {
+        if (state == 0L || currentTime - SharedMemoryFile.time(state) >= this.windowSize) {
+            // 已经进入到了下一个窗口
+            return SharedMemoryFile.pack(currentTime, 0);
+        }
+        return state;
+    }
+}
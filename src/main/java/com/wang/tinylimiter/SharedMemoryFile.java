@@ -0,0 +1,155 @@
+package com.wang.tinylimiter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * 多进程共享的限流状态文件，建议放在 /dev/shm 下
+ * 文件由一个头部和固定数量的 slot 组成，每个 slot 占一个 cache line：[名称 hash][状态][参数]，
+ * 所有字段都只通过 VarHandle 的 CAS 更新，进程崩溃不会留下锁或者写了一半的状态。
+ * 参数由第一个使用 slot 的进程写入，之后参数不一致的进程会被拒绝，避免不同配置的限流器共享同一份状态。
+ *
+ * @author wangjiabao
+ */
+final class SharedMemoryFile {
+    /**
+     * 文件头魔数 "TinyLim1"
+     */
+    private static final long MAGIC = 0x54696E794C696D31L;
+    /**
+     * 每个文件最多容纳的限流器数量
+     */
+    static final int SLOTS = 256;
+    /**
+     * 头部和每个 slot 的大小，按 cache line 对齐避免伪共享
+     */
+    private static final int LINE_SIZE = 64;
+    /**
+     * 状态中计数所占的位数，剩余高位存放毫秒时间戳
+     */
+    private static final int COUNT_BITS = 20;
+    /**
+     * 状态中可以存放的最大计数
+     */
+    static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+
+    SharedMemoryFile(Path path) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射会把文件补齐到所需大小，新增部分为 0；映射在 channel 关闭后依然有效
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, LINE_SIZE + (long) SLOTS * LINE_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 多个进程同时创建文件时只有一个会写入魔数
+        long magic = (long) LONGS.compareAndExchange(this.buffer, 0, 0L, MAGIC);
+        if (magic != 0L && magic != MAGIC) {
+            throw new IllegalArgumentException("not a tiny-limiter shared memory file: " + path);
+        }
+    }
+
+    /**
+     * 按名称查找 slot，不存在则用 CAS 占用一个空 slot（开放寻址），并校验 slot 中记录的参数
+     *
+     * @param name
+     * @param config 限流器参数编码，不能为 0
+     * @return
+     */
+    int slot(String name, long config) {
+        int slot = this.find(name);
+        // 占用 slot 的进程可能还没写入参数，所以这里同样用 CAS 写入，谁先写入以谁为准
+        long current = (long) LONGS.compareAndExchange(this.buffer, configOffset(slot), 0L, config);
+        if (current != 0L && current != config) {
+            throw new IllegalArgumentException("limiter already exists with different parameters: " + name);
+        }
+        return slot;
+    }
+
+    private int find(String name) {
+        long key = hash(name);
+        int start = (int) Long.remainderUnsigned(key, SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            int slot = (start + i) % SLOTS;
+            int offset = keyOffset(slot);
+            long current = (long) LONGS.getVolatile(this.buffer, offset);
+            if (current == 0L) {
+                current = (long) LONGS.compareAndExchange(this.buffer, offset, 0L, key);
+                if (current == 0L) {
+                    return slot;
+                }
+            }
+            if (current == key) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("shared memory file is full, max limiters: " + SLOTS);
+    }
+
+    long get(int slot) {
+        return (long) LONGS.getVolatile(this.buffer, stateOffset(slot));
+    }
+
+    boolean compareAndSet(int slot, long expect, long update) {
+        return LONGS.compareAndSet(this.buffer, stateOffset(slot), expect, update);
+    }
+
+    /**
+     * 多个进程之间可以比较的纳秒时间戳（System.nanoTime() 只在同一个 JVM 内有意义）
+     */
+    static long currentTimeNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * 把毫秒时间戳和计数打包成一个 long，保证一次 CAS 就能原子地更新整份状态
+     */
+    static long pack(long timeMillis, long count) {
+        return (timeMillis << COUNT_BITS) | count;
+    }
+
+    static long time(long state) {
+        return state >>> COUNT_BITS;
+    }
+
+    static long count(long state) {
+        return state & MAX_COUNT;
+    }
+
+    private static int keyOffset(int slot) {
+        return LINE_SIZE + slot * LINE_SIZE;
+    }
+
+    private static int stateOffset(int slot) {
+        return keyOffset(slot) + Long.BYTES;
+    }
+
+    private static int configOffset(int slot) {
+        return keyOffset(slot) + 2 * Long.BYTES;
+    }
+
+    /**
+     * FNV-1a 64 位 hash，0 保留给空 slot
+     */
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0L ? 1L : hash;
+    }
+}
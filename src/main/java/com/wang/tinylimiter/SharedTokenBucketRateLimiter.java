@@ -0,0 +1,99 @@
+package com.wang.tinylimiter;
+
+import java.nio.file.Path;
+
+/**
+ * 多进程共享的令牌桶限流器
+ * 同一台机器上的多个 JVM 使用同一个文件、同一个名称即可共享同一个令牌桶，参数与已有令牌桶不一致时构造会失败。
+ * 共享状态只有一个纳秒时间戳：令牌桶按当前速率再次装满的时间点（GCRA 算法），与"token 数量 + 上次补充时间"的令牌桶等价，
+ * 不需要把计数挤进时间戳的低位，也不受毫秒精度的限制。
+ *
+ * @author wangjiabao
+ */
+public class SharedTokenBucketRateLimiter implements TinyLimiter {
+    /**
+     * 每秒对应的纳秒数
+     */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /**
+     * 每一个 token 生成的时间间隔（向上取整），单位 ns
+     */
+    private final Long interval;
+    /**
+     * 令牌桶从空到满需要的时间，单位 ns
+     */
+    private final Long burst;
+    /**
+     * 共享状态文件
+     */
+    private final SharedMemoryFile file;
+    /**
+     * 当前限流器在共享文件中的 slot
+     */
+    private final int slot;
+
+    public SharedTokenBucketRateLimiter(Path path, String name, Integer tokenPerSecond) {
+        if (tokenPerSecond <= 0 || tokenPerSecond > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException("tokenPerSecond <= 0 || tokenPerSecond > " + NANOS_PER_SECOND);
+        }
+        this.interval = (NANOS_PER_SECOND + tokenPerSecond - 1) / tokenPerSecond;
+        this.burst = tokenPerSecond * this.interval;
+        this.file = new SharedMemoryFile(path);
+        this.slot = this.file.slot("token-bucket:" + name, tokenPerSecond);
+    }
+
+    @Override
+    public boolean allow() {
+        return this.allowUpTo(1) == 1;
+    }
+
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        long currentTimeNanos = SharedMemoryFile.currentTimeNanos();
+        while (true) {
+            long state = this.file.get(this.slot);
+            long fullTime = Math.max(state, currentTimeNanos);
+            int granted = (int) Math.min(permits, this.currentToken(fullTime, currentTimeNanos));
+            // 没有 token 时不写共享内存，减少跨进程的 cache line 争用
+            if (granted == 0) {
+                return 0;
+            }
+            if (this.file.compareAndSet(this.slot, state, fullTime + granted * this.interval)) {
+                return granted;
+            }
+        }
+    }
+
+    @Override
+    public long decide() {
+        long currentTimeNanos = SharedMemoryFile.currentTimeNanos();
+        while (true) {
+            long state = this.file.get(this.slot);
+            long fullTime = Math.max(state, currentTimeNanos);
+            long currentToken = this.currentToken(fullTime, currentTimeNanos);
+            boolean allowed = currentToken > 0;
+            long update = allowed ? fullTime + this.interval : fullTime;
+            if (!allowed || this.file.compareAndSet(this.slot, state, update)) {
+                long remaining = allowed ? currentToken - 1 : 0;
+                // 没有剩余 token 时，等到桶里空出一个 token 的时间
+                long retryAfterNanos = remaining > 0 ? 0 : update + this.interval - this.burst - currentTimeNanos;
+                return Decision.of(allowed, remaining, retryAfterNanos);
+            }
+        }
+    }
+
+    /**
+     * 根据桶再次装满的时间点计算当前的 token 数量
+     *
+     * @param fullTime         令牌桶再次装满的时间点，不早于当前时间
+     * @param currentTimeNanos
+     * @return
+     */
+    private long currentToken(long fullTime, long currentTimeNanos) {
+        // 时钟回拨时 fullTime 可能超过 currentTimeNanos + burst，此时视为没有 token
+        return Math.max(0, (currentTimeNanos + this.burst - fullTime) / this.interval);
+    }
+}
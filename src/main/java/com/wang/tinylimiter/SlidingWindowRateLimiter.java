@@ -5,18 +5,25 @@ import lombok.Data;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 滑动窗口限速器
  * 两个关键：1. 如果计算当前时间落在哪个 slot 上  2. 如何清理过期的窗口和生成新的窗口
+ * 每个 slot 的计数和它所属的轮次打包在同一个 AtomicLong 中：[32 位轮次][32 位计数]，
+ * 进入新一轮的 slot 由一次 CAS 同时换成新轮次并清零，不会抹掉其他线程在新一轮中的计数。
  *
  * @author wangjiabao
  */
 @Data
 public class SlidingWindowRateLimiter implements TinyLimiter{
+    /**
+     * slot 状态中计数所占的位数，高位存放轮次
+     */
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
     /**
      * 滑动窗口的小窗口数
      */
@@ -42,13 +49,9 @@ public class SlidingWindowRateLimiter implements TinyLimiter{
      */
     private AtomicLong startTime;
     /**
-     * 上次清理过期窗口的时间
-     */
-    private AtomicLong lastClearTime;
-    /**
-     * 用来记录每一个小窗的请求数
+     * 用来记录每一个小窗的轮次和请求数
      */
-    private ConcurrentHashMap<Integer, AtomicInteger> countMap;
+    private ConcurrentHashMap<Integer, AtomicLong> countMap;
 
     public SlidingWindowRateLimiter(Integer slots, Integer limit, Integer windowSize) {
         if (windowSize % slots != 0 || limit % slots != 0) {
@@ -73,27 +76,50 @@ public class SlidingWindowRateLimiter implements TinyLimiter{
     private void initCountMap() {
         this.countMap = new ConcurrentHashMap<>(slots);
         for (int i = 0; i < slots; i++) {
-            countMap.put(i, new AtomicInteger(0));
+            countMap.put(i, new AtomicLong(0));
         }
     }
 
     @Override
     public boolean allow() {
+        return this.allowUpTo(1) == 1;
+    }
+
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        long countSlot = (System.currentTimeMillis() - startTime.get()) / duration;
+        AtomicLong counter = countMap.get((int) (countSlot % slots));
+        // CAS 一次性占用当前小窗剩余的额度，上一轮的计数在同一次 CAS 中被清零
+        while (true) {
+            long state = counter.get();
+            long round = this.currentRound(state, countSlot);
+            int current = this.count(state, round);
+            int granted = Math.max(0, Math.min(permits, this.slotLimit - current));
+            if (granted == 0 || counter.compareAndSet(state, pack(round, current + granted))) {
+                return granted;
+            }
+        }
+    }
+
+    @Override
+    public long decide() {
         long currentTime = System.currentTimeMillis();
-        // 计算当前所在的 slot
-        Integer slot = this.getSlot(currentTime);
-        // 先清理过期 slot
-        this.cleanExpiredSlot(currentTime, slot);
-        // 使用 computeIfAbsent 初始化新窗口
-        AtomicInteger currentCount = countMap.computeIfAbsent(slot, k -> new AtomicInteger(0));
-        // 判断是否超过限流
-        if (currentCount.get() >= this.slotLimit) {
-            return false;
-        } else {
-            // 并发场景下，这里可能会有并发问题，需要引用原子类来保证并发安全
-            currentCount.incrementAndGet();
-            this.countMap.put(slot, currentCount);
-            return true;
+        long countSlot = (currentTime - startTime.get()) / duration;
+        AtomicLong counter = countMap.get((int) (countSlot % slots));
+        while (true) {
+            long state = counter.get();
+            long round = this.currentRound(state, countSlot);
+            int current = this.count(state, round);
+            boolean allowed = current < this.slotLimit;
+            if (!allowed || counter.compareAndSet(state, pack(round, current + 1))) {
+                int remaining = allowed ? this.slotLimit - current - 1 : 0;
+                // 当前小窗额度用完时，需要等到下一个小窗开始，下一个小窗属于新的一轮，计数从 0 开始
+                long retryAfterMillis = remaining > 0 ? 0 : duration - (currentTime - startTime.get()) % duration;
+                return Decision.of(allowed, remaining, TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            }
         }
     }
 
@@ -108,7 +134,32 @@ public class SlidingWindowRateLimiter implements TinyLimiter{
         return (int) (countSlot % slots);
     }
 
-    private void cleanExpiredSlot(long currentTime, int currentSlotIndex) {
-        // todo
+    /**
+     * 计算本次请求所属的轮次（取低 32 位）
+     * 其他线程已经把 slot 推进到更新的轮次时，沿用更新的轮次，避免慢线程把新一轮的计数清零
+     *
+     * @param state
+     * @param countSlot
+     * @return
+     */
+    private long currentRound(long state, long countSlot) {
+        long round = (countSlot / slots) & COUNT_MASK;
+        long stateRound = state >>> COUNT_BITS;
+        return (int) (stateRound - round) > 0 ? stateRound : round;
+    }
+
+    /**
+     * slot 在指定轮次中的计数，属于其他轮次时视为 0
+     *
+     * @param state
+     * @param round
+     * @return
+     */
+    private int count(long state, long round) {
+        return state >>> COUNT_BITS == round ? (int) (state & COUNT_MASK) : 0;
+    }
+
+    private static long pack(long round, int count) {
+        return (round << COUNT_BITS) | count;
     }
 }
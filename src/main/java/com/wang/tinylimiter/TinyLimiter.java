@@ -11,4 +11,19 @@ public interface TinyLimiter {
      * @return
      */
     boolean allow();
+
+    /**
+     * 批量申请通行，一次读取时间、一次更新状态，尽可能多地放行
+     *
+     * @param permits 本批次申请的通行数
+     * @return 实际放行的数量，范围 [0, permits]，调用方按顺序放行前 N 个请求即可
+     */
+    int allowUpTo(int permits);
+
+    /**
+     * 申请一次通行，同时给出剩余可通行数和距离下一次可通行的时间
+     *
+     * @return 打包后的决策结果，使用 {@link Decision} 解析
+     */
+    long decide();
 }
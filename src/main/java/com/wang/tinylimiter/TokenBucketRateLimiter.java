@@ -7,7 +7,11 @@ package com.wang.tinylimiter;
  */
 public class TokenBucketRateLimiter implements TinyLimiter{
     /**
-     * 每一个 token 生成的时间间隔，单位 ms
+     * 每秒对应的纳秒数
+     */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /**
+     * 每一个 token 生成的时间间隔（向上取整），单位 ns
      */
     private final Long interval;
     /**
@@ -19,7 +23,7 @@ public class TokenBucketRateLimiter implements TinyLimiter{
      */
     private final Integer maxToken;
     /**
-     * 下一个可以获取 Token 的时间戳，单位 ms
+     * 最后一次生成 Token 的时间点，System.nanoTime()，单位 ns
      */
     private Long nextAvailableGetTokenTime;
     /**
@@ -29,11 +33,14 @@ public class TokenBucketRateLimiter implements TinyLimiter{
 
 
     public TokenBucketRateLimiter(Integer tokenPerSecond) {
+        if (tokenPerSecond <= 0 || tokenPerSecond > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException("tokenPerSecond <= 0 || tokenPerSecond > " + NANOS_PER_SECOND);
+        }
         this.tokenPerSecond = tokenPerSecond;
-        this.interval = 1000L / tokenPerSecond;
+        this.interval = (NANOS_PER_SECOND + tokenPerSecond - 1) / tokenPerSecond;
         this.currentToken = (long) tokenPerSecond;
         this.maxToken = tokenPerSecond;
-        this.nextAvailableGetTokenTime = 0L;
+        this.nextAvailableGetTokenTime = System.nanoTime();
     }
 
     /**
@@ -44,9 +51,9 @@ public class TokenBucketRateLimiter implements TinyLimiter{
     @Override
     public boolean allow() {
         synchronized (this) {
-            long currentTimeMillis = System.currentTimeMillis();
+            long currentTimeNanos = System.nanoTime();
             // refresh token
-            this.refillToken(currentTimeMillis);
+            this.refillToken(currentTimeNanos);
             if (this.currentToken > 0) {
                 this.currentToken--;
                 return true;
@@ -55,19 +62,97 @@ public class TokenBucketRateLimiter implements TinyLimiter{
         }
     }
 
+    @Override
+    public int allowUpTo(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits < 0");
+        }
+        synchronized (this) {
+            long currentTimeNanos = System.nanoTime();
+            // refresh token
+            this.refillToken(currentTimeNanos);
+            // 一次性扣减本批次能拿到的全部 token
+            int granted = (int) Math.min(permits, this.currentToken);
+            this.currentToken -= granted;
+            return granted;
+        }
+    }
+
+    @Override
+    public long decide() {
+        synchronized (this) {
+            long currentTimeNanos = System.nanoTime();
+            // refresh token
+            this.refillToken(currentTimeNanos);
+            boolean allowed = this.currentToken > 0;
+            if (allowed) {
+                this.currentToken--;
+            }
+            // 没有剩余 token 时，下一个 token 在最后一次生成 token 的时间点再过一个 interval 后产生
+            long retryAfterNanos = this.currentToken > 0
+                    ? 0 : this.nextAvailableGetTokenTime + this.interval - currentTimeNanos;
+            return Decision.of(allowed, this.currentToken, retryAfterNanos);
+        }
+    }
+
+    /**
+     * 每一个 token 生成的时间间隔，单位 ns
+     */
+    long intervalNanos() {
+        return this.interval;
+    }
+
+    /**
+     * 查看当前剩余的 token 数量和下一个 token 的时间，不消费 token
+     *
+     * @return 打包后的决策结果，是否放行表示当前是否还有 token
+     */
+    long probe() {
+        synchronized (this) {
+            long currentTimeNanos = System.nanoTime();
+            // refresh token
+            this.refillToken(currentTimeNanos);
+            long retryAfterNanos = this.currentToken > 0
+                    ? 0 : this.nextAvailableGetTokenTime + this.interval - currentTimeNanos;
+            return Decision.of(this.currentToken > 0, this.currentToken, retryAfterNanos);
+        }
+    }
+
+    /**
+     * 归还未用完的 token，但不能超过 maxToken
+     *
+     * @param tokens
+     */
+    void returnToken(long tokens) {
+        synchronized (this) {
+            this.currentToken = Math.min(this.maxToken, this.currentToken + tokens);
+        }
+    }
+
     /**
      * 刷新 token
      *
-     * @param currentTimeMillis
+     * @param currentTimeNanos
      */
-    private void refillToken(long currentTimeMillis) {
-        if (currentTimeMillis > this.nextAvailableGetTokenTime) {
-            // 当前时间超过下一个可获取 token 的时间，说明已经有 Token 过期了，需要补充
-            long needAddToken = (currentTimeMillis - this.nextAvailableGetTokenTime) / this.interval;
-            // 补充 Token，但不能超过 maxToken
-            this.currentToken = Math.min(this.maxToken, this.currentToken + needAddToken);
-            // 更新下一个可获取 Token 的时间为最后一次生成 Token 的时间点
-            this.nextAvailableGetTokenTime += needAddToken * this.interval;
+    private void refillToken(long currentTimeNanos) {
+        long elapsed = currentTimeNanos - this.nextAvailableGetTokenTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        if (elapsed >= NANOS_PER_SECOND) {
+            // 一秒内生成的 token 数量就是 maxToken，桶已经满了
+            this.currentToken = (long) this.maxToken;
+            this.nextAvailableGetTokenTime = currentTimeNanos;
+            return;
+        }
+        // 按速率计算需要补充的 token，elapsed < 1s 时乘法不会溢出，也不会因为 interval 取整而偏离速率
+        long needAddToken = elapsed * this.tokenPerSecond / NANOS_PER_SECOND;
+        if (needAddToken == 0) {
+            return;
         }
+        // 补充 Token，但不能超过 maxToken
+        this.currentToken = Math.min(this.maxToken, this.currentToken + needAddToken);
+        // 更新为最后一次生成 Token 的时间点，向上取整保证同一段时间不会被重复计算
+        this.nextAvailableGetTokenTime += (needAddToken * NANOS_PER_SECOND + this.tokenPerSecond - 1) / this.tokenPerSecond;
     }
 }
@@ -0,0 +1,142 @@
+package com.wang.tinylimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class CountMinSketchRateLimiterTest {
+
+    private CountMinSketchRateLimiter<String> rateLimiter;
+
+    @Before
+    public void setUp() {
+        // 1秒窗口，每个 key 限制为 5，4 x 4096 的计数表，最多 16 个热点 key
+        rateLimiter = new CountMinSketchRateLimiter<>(1000, 5, 4, 4096, 16);
+    }
+
+    @Test
+    public void allow_HeavyKey_ShouldBeLimited() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.allow("10.0.0.1"));
+        }
+        assertFalse(rateLimiter.allow("10.0.0.1"));
+        // 其他 key 不受影响
+        assertTrue(rateLimiter.allow("10.0.0.2"));
+    }
+
+    @Test
+    public void allow_ManyLightKeys_ShouldBeAllowed() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(rateLimiter.allow("192.168." + (i / 256) + "." + (i % 256)));
+        }
+    }
+
+    @Test
+    public void allow_HeavyKeysBeyondCapacity_ShouldFallBackToSketch() {
+        CountMinSketchRateLimiter<Integer> rateLimiter = new CountMinSketchRateLimiter<>(1000, 5, 4, 4096, 1);
+        for (int key = 0; key < 3; key++) {
+            int allowed = 0;
+            for (int i = 0; i < 20; i++) {
+                if (rateLimiter.allow(key)) {
+                    allowed++;
+                }
+            }
+            // 只有第一个 key 被晋升，其余按估算值限流
+            assertEquals(5, allowed);
+        }
+    }
+
+    @Test
+    public void allow_AfterWindowExpired_ShouldReturnTrue() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.allow("10.0.0.1"));
+        }
+        assertFalse(rateLimiter.allow("10.0.0.1"));
+        // 等待两个窗口，计数表和热点 key 都已过期
+        Thread.sleep(2000);
+        assertTrue(rateLimiter.allow("10.0.0.1"));
+    }
+
+    @Test
+    public void allow_ConcurrentPromotion_ShouldNotExceedMaxHeavyHitters() throws InterruptedException {
+        CountMinSketchRateLimiter<Integer> rateLimiter = new CountMinSketchRateLimiter<>(1000, 4, 4, 4096, 4);
+        int threadCount = 16;
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch endLatch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    // 每个线程都让 64 个 key 越过晋升阈值
+                    for (int key = 0; key < 64; key++) {
+                        for (int j = 0; j < 4; j++) {
+                            rateLimiter.allow(key);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endLatch.countDown();
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        endLatch.await();
+        assertTrue(rateLimiter.heavyHitterSize() <= 4);
+    }
+
+    @Test
+    public void allow_PromotedKey_ShouldKeepSketchWindow() throws InterruptedException {
+        CountMinSketchRateLimiter<String> rateLimiter = new CountMinSketchRateLimiter<>(200, 5, 4, 4096, 16);
+        // 从窗口开头开始，避免一批请求跨过窗口边界时按滑动窗口多放行
+        awaitWindowStart(200);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.allow("10.0.0.1"));
+        }
+        assertFalse(rateLimiter.allow("10.0.0.1"));
+        // 晋升后的精确计数与计数表一样按 200ms 对齐的窗口滑动，两个窗口之后完全恢复
+        Thread.sleep(400);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.allow("10.0.0.1"));
+        }
+        assertFalse(rateLimiter.allow("10.0.0.1"));
+    }
+
+    @Test
+    public void allow_LimitOne_FirstRequestShouldNotPromote() {
+        CountMinSketchRateLimiter<String> rateLimiter = new CountMinSketchRateLimiter<>(1000, 1, 4, 4096, 16);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.allow("10.0.0." + i));
+        }
+        assertEquals(0, rateLimiter.heavyHitterSize());
+        // 第二次请求才会晋升并被拒绝
+        assertFalse(rateLimiter.allow("10.0.0.1"));
+        assertEquals(1, rateLimiter.heavyHitterSize());
+    }
+
+    @Test
+    public void allow_KeysWithSameHashCode_ShouldNotCollide() {
+        CountMinSketchRateLimiter<String> rateLimiter = new CountMinSketchRateLimiter<>(1000, 1, 4, 4096, 16);
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertTrue(rateLimiter.allow("Aa"));
+        assertTrue(rateLimiter.allow("BB"));
+    }
+
+    @Test
+    public void allow_CustomHasher_ShouldBeUsed() {
+        // 所有 key 的 hash 相同，相当于共享同一个计数
+        CountMinSketchRateLimiter<String> rateLimiter = new CountMinSketchRateLimiter<>(1000, 1, 4, 4096, 0, key -> 42L);
+        assertTrue(rateLimiter.allow("10.0.0.1"));
+        assertFalse(rateLimiter.allow("10.0.0.2"));
+    }
+
+    /**
+     * 等待到下一个窗口的开头
+     */
+    private static void awaitWindowStart(long windowSize) throws InterruptedException {
+        Thread.sleep(windowSize - System.currentTimeMillis() % windowSize);
+    }
+}
@@ -0,0 +1,43 @@
+package com.wang.tinylimiter;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DecisionTest {
+
+    @Test
+    public void of_ShouldRoundTrip() {
+        long decision = Decision.of(true, 42, 1_500_000L);
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(42, Decision.remaining(decision));
+        assertEquals(1_500_000L, Decision.retryAfterNanos(decision));
+
+        // 不足 1 微秒的部分向上取整
+        decision = Decision.of(false, 0, 7L);
+        assertFalse(Decision.isAllowed(decision));
+        assertEquals(0, Decision.remaining(decision));
+        assertEquals(1000L, Decision.retryAfterNanos(decision));
+    }
+
+    @Test
+    public void of_LongestIntegerWindow_ShouldNotSaturate() {
+        long retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(Integer.MAX_VALUE);
+        long decision = Decision.of(false, 0, retryAfterNanos);
+        assertEquals(retryAfterNanos, Decision.retryAfterNanos(decision));
+    }
+
+    @Test
+    public void of_OutOfRange_ShouldSaturate() {
+        long decision = Decision.of(false, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertFalse(Decision.isAllowed(decision));
+        assertEquals(Decision.MAX_REMAINING, Decision.remaining(decision));
+        assertEquals(Decision.MAX_RETRY_AFTER_NANOS, Decision.retryAfterNanos(decision));
+
+        decision = Decision.of(true, -1, -1);
+        assertEquals(0, Decision.remaining(decision));
+        assertEquals(0, Decision.retryAfterNanos(decision));
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
@@ -63,4 +64,37 @@ public class FixedWindowRateLimiterTest {
         latch.await();
         assertTrue(allowedCount.get() <= LIMIT);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void allowUpTo_ShouldNotExceedLimit() {
+        assertEquals(3, rateLimiter.allowUpTo(3));
+        assertEquals(2, rateLimiter.allowUpTo(3));
+        assertEquals(0, rateLimiter.allowUpTo(3));
+        assertFalse(rateLimiter.allow());
+    }
+
+    @Test
+    public void decide_ShouldReportWindowBoundary() {
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(4, Decision.remaining(decision));
+        rateLimiter.allowUpTo(4);
+        decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        assertEquals(0, Decision.remaining(decision));
+        // 需要等到 1 秒窗口结束
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void decide_LongWindow_ShouldReportFullWait() {
+        // 1 小时窗口，需要完整地给出接近 1 小时的等待时间
+        FixedWindowRateLimiter rateLimiter = new FixedWindowRateLimiter(3_600_000, 1);
+        assertTrue(Decision.isAllowed(rateLimiter.decide()));
+        long decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > TimeUnit.SECONDS.toNanos(3590) && retryAfterNanos <= TimeUnit.HOURS.toNanos(1));
+    }
+}
@@ -99,4 +99,72 @@ public class LeakyBucketRateLimiterTest {
         Thread.sleep(1000); // 等待 1 秒
         assertTrue(limiter.allow()); // 允许（漏水后）
     }
-}
\ No newline at end of file
+
+    // 6. 批量测试
+    @Test
+    public void testAllowUpTo() {
+        LeakyBucketRateLimiter limiter = new LeakyBucketRateLimiter(2, 5);
+        assertEquals(3, limiter.allowUpTo(3)); // 当前水量 = 3
+        assertEquals(2, limiter.allowUpTo(3)); // 只剩 2 个空位，当前水量 = 5
+        assertEquals(0, limiter.allowUpTo(3)); // 桶已满，拒绝
+        assertFalse(limiter.allow());
+    }
+
+    // 7. 决策结果测试
+    @Test
+    public void testDecide() {
+        LeakyBucketRateLimiter limiter = new LeakyBucketRateLimiter(2, 2);
+        long decision = limiter.decide(); // 允许，当前水量 = 1
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(1, Decision.remaining(decision));
+        assertEquals(0, Decision.retryAfterNanos(decision));
+        limiter.allow(); // 当前水量 = 2
+        decision = limiter.decide(); // 桶已满，拒绝
+        assertFalse(Decision.isAllowed(decision));
+        // 每 500ms 漏出 1 单位水
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    // 8. 高频轮询测试：调用间隔小于漏水间隔时，桶依然要按速率漏水
+    @Test
+    public void testFrequentPollingShouldStillLeak() throws InterruptedException {
+        LeakyBucketRateLimiter limiter = new LeakyBucketRateLimiter(10, 2); // 每 100ms 漏出 1 单位水
+        assertEquals(2, limiter.allowUpTo(2)); // 桶已满
+        int allowedCount = 0;
+        // 每 20ms 请求一次，持续约 300ms
+        for (int i = 0; i < 15; i++) {
+            Thread.sleep(20);
+            if (limiter.allow()) {
+                allowedCount++;
+            }
+        }
+        // 期间至少漏出 2 单位水
+        assertTrue("allowed: " + allowedCount, allowedCount >= 2);
+    }
+
+    // 9. 高速率测试：每秒漏水超过 1000 单位
+    @Test
+    public void testHighLeakRate() throws InterruptedException {
+        LeakyBucketRateLimiter limiter = new LeakyBucketRateLimiter(2000, 10); // 每 0.5ms 漏出 1 单位水
+        assertEquals(500_000L, limiter.intervalNanos());
+        assertEquals(10, limiter.allowUpTo(10)); // 桶已满
+        long decision = limiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        assertTrue(Decision.retryAfterNanos(decision) <= TimeUnit.MICROSECONDS.toNanos(500));
+        Thread.sleep(10); // 10ms 足够漏空
+        assertEquals(10, limiter.allowUpTo(10));
+    }
+
+    // 10. 不能整除 1 秒的速率：每秒 300 单位，不能按 3ms 一单位（每秒 333 单位）漏水
+    @Test
+    public void testRateNotDividingOneSecond() {
+        LeakyBucketRateLimiter limiter = new LeakyBucketRateLimiter(300, 10);
+        assertEquals(3_333_334L, limiter.intervalNanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLeakRate() {
+        new LeakyBucketRateLimiter(0, 10);
+    }
+}
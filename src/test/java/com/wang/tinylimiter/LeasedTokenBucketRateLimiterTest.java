@@ -0,0 +1,153 @@
+package com.wang.tinylimiter;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LeasedTokenBucketRateLimiterTest {
+
+    @Test
+    public void allow_ShouldNotExceedBucketCapacity() {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 3, 1000L);
+        // 令牌桶初始有10个令牌，租约只是换了消费位置，总数不变
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rateLimiter.allow());
+        }
+        assertFalse(rateLimiter.allow());
+    }
+
+    @Test
+    public void allowUpTo_ShouldCombineLeaseAndSharedBucket() {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 3, 1000L);
+        // 租借 1 + 3 个，本地剩余 3 个
+        assertTrue(rateLimiter.allow());
+        // 本地 3 个 + 共享桶剩余 6 个
+        assertEquals(9, rateLimiter.allowUpTo(20));
+        assertEquals(0, rateLimiter.allowUpTo(20));
+    }
+
+    @Test
+    public void allow_ExpiredLease_ShouldReturnTokensToSharedBucket() throws Exception {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 5, 50L);
+        // 当前线程租借 1 + 5 个，共享桶剩余 4 个
+        assertTrue(rateLimiter.allow());
+        // 其他线程只能拿到共享桶剩余的 4 个（期间最多补充 1 个 token）
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        int leased = executorService.submit(() -> rateLimiter.allowUpTo(10)).get();
+        assertTrue(leased >= 4 && leased <= 5);
+        // 等待租约过期，剩余的 5 个 token 归还后可以重新获取（期间最多补充 1 个 token）
+        Thread.sleep(60);
+        int granted = rateLimiter.allowUpTo(10);
+        assertTrue(granted >= 5 && granted <= 6);
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 4, 1000L);
+        int threadCount = 8;
+        AtomicInteger allowedRequests = new AtomicInteger(0);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch endLatch = new CountDownLatch(threadCount);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executorService.submit(() -> {
+                try {
+                    startLatch.await();
+                    for (int j = 0; j < 10; j++) {
+                        if (rateLimiter.allow()) {
+                            allowedRequests.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endLatch.countDown();
+                }
+            });
+        }
+        startLatch.countDown();
+        endLatch.await();
+        executorService.shutdown();
+        // 租借只会移动 token，不会凭空产生 token，这里放宽 1 个补充的误差
+        assertTrue(allowedRequests.get() <= 11);
+    }
+
+    @Test
+    public void allow_IdleThreadLease_ShouldBeReclaimedByOtherThreads() throws Exception {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 5, 50L);
+        // 其他线程租借 1 + 5 个之后一直空闲，不会再调用限流器
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        assertTrue(executorService.submit(rateLimiter::allow).get());
+        // 当前线程只能拿到共享桶剩余的 4 个（期间最多补充 1 个 token）
+        int leased = rateLimiter.allowUpTo(10);
+        assertTrue(leased >= 4 && leased <= 5);
+        // 等待租约过期，空闲线程租约中的 5 个 token 被当前线程收回（期间最多补充 1 个 token）
+        Thread.sleep(60);
+        int granted = rateLimiter.allowUpTo(10);
+        assertTrue("granted: " + granted, granted >= 5 && granted <= 6);
+        executorService.shutdown();
+    }
+
+    @Test
+    public void allow_RateAboveOneThousand_ShouldWork() {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(100000, 64, 10L);
+        assertTrue(rateLimiter.allow());
+        // 令牌桶初始有 10 万个令牌，这里放宽补充的误差
+        int granted = rateLimiter.allowUpTo(200000) + 1;
+        assertTrue("granted: " + granted, granted >= 100000 && granted <= 110000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_WithLeaseLargerThanCapacity_ShouldThrow() {
+        new LeasedTokenBucketRateLimiter(10, 20, 50L);
+    }
+
+    @Test
+    public void decide_LastToken_ShouldReportSharedRetryAfter() {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 3, 1000L);
+        // 共享桶的 10 个令牌：9 个被使用，1 个留在本地租约
+        assertEquals(9, rateLimiter.allowUpTo(9));
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        // 本地租约和共享桶都已耗尽，不能让调用方立即重试
+        assertEquals(0, Decision.remaining(decision));
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+
+        decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        assertTrue(Decision.retryAfterNanos(decision) > 0);
+    }
+
+    @Test
+    public void decide_WithLeaseAndSharedTokens_ShouldReportBoth() {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(10, 3, 1000L);
+        // 租借 1 + 3 个，本地剩余 3 个，共享桶剩余 6 个
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(9, Decision.remaining(decision));
+        assertEquals(0, Decision.retryAfterNanos(decision));
+    }
+
+    @Test
+    public void allow_ShortLivedThreads_ShouldNotLeakLeases() throws InterruptedException {
+        LeasedTokenBucketRateLimiter rateLimiter = new LeasedTokenBucketRateLimiter(100000, 4, 20L);
+        // 大量短生命周期线程各调用一次，令牌桶一直充足
+        for (int i = 0; i < 200; i++) {
+            Thread thread = new Thread(rateLimiter::allow);
+            thread.start();
+            thread.join();
+        }
+        // 超过 leaseTimeout 后的下一次续租会清理已退出线程的租约
+        Thread.sleep(30);
+        assertTrue(rateLimiter.allowUpTo(10) > 0);
+        assertEquals(1, rateLimiter.leaseCount());
+    }
+}
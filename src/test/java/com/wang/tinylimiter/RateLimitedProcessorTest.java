@@ -0,0 +1,200 @@
+package com.wang.tinylimiter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RateLimitedProcessorTest {
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void process_ShouldDeliverAllItemsAtLimitedRate() throws InterruptedException {
+        // 令牌桶初始有 20 个令牌，之后每 50ms 生成一个
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(20), 8, scheduler);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        long startTime = System.currentTimeMillis();
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 30; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - startTime;
+        // 不丢数据，并且顺序不变
+        assertEquals(30, subscriber.items.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, (int) subscriber.items.get(i));
+        }
+        // 多出的 10 个数据至少需要等待约 10 个令牌的生成时间
+        assertTrue("elapsed: " + elapsed, elapsed >= 400);
+    }
+
+    @Test
+    public void process_ShouldRequestUpstreamInBoundedBatches() {
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(100), 8, scheduler);
+        RecordingPublisher publisher = new RecordingPublisher(40);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        assertEquals(40, subscriber.items.size());
+        assertEquals(0, subscriber.completed.getCount());
+        // 每次 request 不超过 batchSize，并且是批量请求而不是逐个请求
+        for (Long n : publisher.requests) {
+            assertTrue(n <= 8);
+        }
+        assertTrue(publisher.requests.size() <= 10);
+    }
+
+    @Test
+    public void process_ShouldRespectDownstreamDemand() {
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(100), 8, scheduler);
+        RecordingPublisher publisher = new RecordingPublisher(40);
+        CollectingSubscriber subscriber = new CollectingSubscriber(3);
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        // 下游只请求了 3 个，上游也只会被请求 3 个，不会缓冲多余的数据
+        assertEquals(3, subscriber.items.size());
+        assertEquals(3, publisher.requests.stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void process_SustainedThrottling_ShouldStillRequestInBatches() throws InterruptedException {
+        // 令牌桶初始有 100 个令牌，之后每 10ms 生成一个，多出的 50 个数据都在持续限流下请求
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(100), 16, scheduler);
+        RecordingPublisher publisher = new RecordingPublisher(150);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(150, subscriber.items.size());
+        // 每次 request 都至少是半个批次，而不是令牌补充一个就 request(1)
+        for (Long n : publisher.requests) {
+            assertTrue("request: " + n, n >= 8 && n <= 16);
+        }
+    }
+
+    @Test
+    public void process_SchedulerRejected_ShouldCancelUpstreamAndSignalError() {
+        scheduler.shutdown();
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(10), 4, scheduler);
+        RecordingPublisher publisher = new RecordingPublisher(40);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        // 令牌耗尽后无法安排定时请求，异常不能抛给上游
+        publisher.subscribe(processor);
+
+        assertEquals(10, subscriber.items.size());
+        assertTrue(subscriber.error.get() instanceof RejectedExecutionException);
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void subscribe_Twice_ShouldSignalError() {
+        RateLimitedProcessor<Integer> processor = new RateLimitedProcessor<>(new TokenBucketRateLimiter(100), 8, scheduler);
+        processor.subscribe(new CollectingSubscriber(1));
+        CollectingSubscriber second = new CollectingSubscriber(1);
+        processor.subscribe(second);
+        assertTrue(second.error.get() instanceof IllegalStateException);
+    }
+
+    /**
+     * 收集数据的下游订阅者，订阅后一次性请求 demand 个
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<Integer> {
+        private final long demand;
+        private final List<Integer> items = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        private CollectingSubscriber(long demand) {
+            this.demand = demand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(demand);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    /**
+     * 记录每一次 request(n) 的上游，收到请求后同步发送数据
+     */
+    private static class RecordingPublisher implements Flow.Publisher<Integer> {
+        private final int total;
+        private final List<Long> requests = new CopyOnWriteArrayList<>();
+        private int next;
+        private boolean completed;
+        private volatile boolean cancelled;
+
+        private RecordingPublisher(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requests.add(n);
+                    for (long i = 0; i < n && next < total; i++) {
+                        subscriber.onNext(next++);
+                    }
+                    if (next == total && !completed) {
+                        completed = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.wang.tinylimiter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SharedFixedWindowRateLimiterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void setUp() {
+        path = folder.getRoot().toPath().resolve("tiny-limiter.shm");
+    }
+
+    @Test
+    public void allow_SameName_ShouldShareWindow() {
+        // 两个实例各自映射同一个文件，相当于两个进程
+        SharedFixedWindowRateLimiter first = new SharedFixedWindowRateLimiter(path, "api", 1000, 5);
+        SharedFixedWindowRateLimiter second = new SharedFixedWindowRateLimiter(path, "api", 1000, 5);
+        assertEquals(3, first.allowUpTo(3));
+        assertEquals(2, second.allowUpTo(3));
+        assertFalse(first.allow());
+    }
+
+    @Test
+    public void allow_AfterWindowReset_ReturnsTrue() throws InterruptedException {
+        SharedFixedWindowRateLimiter rateLimiter = new SharedFixedWindowRateLimiter(path, "api", 1000, 5);
+        assertEquals(5, rateLimiter.allowUpTo(10));
+        assertFalse(rateLimiter.allow());
+        Thread.sleep(1000); // 等待窗口重置
+        assertTrue(rateLimiter.allow());
+    }
+
+    @Test
+    public void allow_MultiThreadedAccess() throws InterruptedException {
+        final int THREADS = 10;
+        final int LIMIT = 5;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        final AtomicInteger allowedCount = new AtomicInteger(0);
+
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(() -> {
+                SharedFixedWindowRateLimiter rateLimiter = new SharedFixedWindowRateLimiter(path, "api", 1000, LIMIT);
+                for (int j = 0; j < 10; j++) {
+                    if (rateLimiter.allow()) {
+                        allowedCount.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        latch.await();
+        assertTrue(allowedCount.get() <= LIMIT);
+    }
+
+    @Test
+    public void decide_ShouldReportWindowBoundary() throws InterruptedException {
+        SharedFixedWindowRateLimiter rateLimiter = new SharedFixedWindowRateLimiter(path, "api", 200, 5);
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(4, Decision.remaining(decision));
+        rateLimiter.allowUpTo(4);
+        decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        // 需要等到 200ms 窗口结束
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(200));
+        // 按提示的时间重试可以通过
+        TimeUnit.NANOSECONDS.sleep(retryAfterNanos);
+        assertTrue(rateLimiter.allow());
+    }
+
+    @Test
+    public void allow_FromChildProcess_ShouldShareWindow() throws Exception {
+        SharedFixedWindowRateLimiter rateLimiter = new SharedFixedWindowRateLimiter(path, "api", 60000, 10);
+        assertEquals(6, rateLimiter.allowUpTo(6));
+        // 另起一个 JVM 映射同一个文件，只能拿到剩下的 4 个
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ChildProcess.class.getName(), path.toString(), "10")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String output;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            output = reader.readLine();
+        }
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue());
+        assertEquals("4", output);
+        assertFalse(rateLimiter.allow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_SameNameWithDifferentLimit_ShouldThrowException() {
+        new SharedFixedWindowRateLimiter(path, "api", 1000, 5);
+        new SharedFixedWindowRateLimiter(path, "api", 1000, 10);
+    }
+
+    /**
+     * 子进程入口：按参数申请通行数并输出拿到的数量
+     */
+    public static class ChildProcess {
+        public static void main(String[] args) {
+            SharedFixedWindowRateLimiter rateLimiter = new SharedFixedWindowRateLimiter(Paths.get(args[0]), "api", 60000, 10);
+            System.out.println(rateLimiter.allowUpTo(Integer.parseInt(args[1])));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.wang.tinylimiter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SharedTokenBucketRateLimiterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = folder.getRoot().toPath().resolve("tiny-limiter.shm");
+    }
+
+    @Test
+    public void allow_WithAvailableTokens_ShouldReturnTrue() {
+        SharedTokenBucketRateLimiter rateLimiter = new SharedTokenBucketRateLimiter(path, "db", 10);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rateLimiter.allow());
+        }
+        assertFalse(rateLimiter.allow());
+    }
+
+    @Test
+    public void allow_SameName_ShouldShareTokens() {
+        // 两个实例各自映射同一个文件，相当于两个进程
+        SharedTokenBucketRateLimiter first = new SharedTokenBucketRateLimiter(path, "db", 10);
+        SharedTokenBucketRateLimiter second = new SharedTokenBucketRateLimiter(path, "db", 10);
+        assertEquals(6, first.allowUpTo(6));
+        assertEquals(4, second.allowUpTo(6));
+        assertFalse(first.allow());
+        assertFalse(second.allow());
+    }
+
+    @Test
+    public void allow_DifferentName_ShouldNotShareTokens() {
+        SharedTokenBucketRateLimiter db = new SharedTokenBucketRateLimiter(path, "db", 10);
+        SharedTokenBucketRateLimiter disk = new SharedTokenBucketRateLimiter(path, "disk", 10);
+        assertEquals(10, db.allowUpTo(20));
+        assertEquals(10, disk.allowUpTo(20));
+    }
+
+    @Test
+    public void allow_AfterTokenRefresh_ShouldReturnTrue() throws InterruptedException {
+        SharedTokenBucketRateLimiter rateLimiter = new SharedTokenBucketRateLimiter(path, "db", 10);
+        assertEquals(10, rateLimiter.allowUpTo(10));
+        Thread.sleep(100);
+        assertTrue(rateLimiter.allow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_WithForeignFile_ShouldThrow() throws IOException {
+        Files.write(path, "not a limiter file".getBytes());
+        new SharedTokenBucketRateLimiter(path, "db", 10);
+    }
+
+    @Test
+    public void decide_ShouldReportRetryAfter() {
+        SharedTokenBucketRateLimiter rateLimiter = new SharedTokenBucketRateLimiter(path, "db", 10);
+        assertEquals(9, Decision.remaining(rateLimiter.decide()));
+        rateLimiter.allowUpTo(9);
+        long decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void allowUpTo_RateAboveOneThousand_ShouldRefillAtRate() throws InterruptedException {
+        SharedTokenBucketRateLimiter rateLimiter = new SharedTokenBucketRateLimiter(path, "db", 100000);
+        long beforeDrain = System.nanoTime();
+        int drained = rateLimiter.allowUpTo(200000);
+        long afterDrain = System.nanoTime();
+        assertTrue(drained >= 100000 && drained <= 100000 + (afterDrain - beforeDrain) * 100000 / 1_000_000_000L + 1);
+        Thread.sleep(10);
+        long beforeRefill = System.nanoTime();
+        int granted = rateLimiter.allowUpTo(100000);
+        long afterRefill = System.nanoTime();
+        // 每秒 10 万个令牌，补充的数量与经过的时间成正比
+        assertTrue(granted >= (beforeRefill - afterDrain) * 100000 / 1_000_000_000L - 1);
+        assertTrue(granted <= (afterRefill - beforeDrain) * 100000 / 1_000_000_000L + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_WithNonPositiveRate_ShouldThrow() {
+        new SharedTokenBucketRateLimiter(path, "db", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_SameNameWithDifferentRate_ShouldThrowException() {
+        new SharedTokenBucketRateLimiter(path, "db", 10);
+        new SharedTokenBucketRateLimiter(path, "db", 20);
+    }
+}
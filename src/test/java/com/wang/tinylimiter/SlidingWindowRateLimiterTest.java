@@ -174,4 +174,62 @@ public void allow_FillEachSlotToLimit_ShouldReturnFalseForAdditionalRequests() t
             Thread.sleep(slotInterval);
         }
     }
+
+    @Test
+    public void allowUpTo_ShouldGrantAtMostSlotLimit() {
+        // 每个槽限制为 10
+        assertEquals(10, rateLimiter.allowUpTo(15));
+        assertEquals(0, rateLimiter.allowUpTo(15));
+    }
+
+    @Test
+    public void decide_SlotFull_ShouldRetryAtNextSlot() throws InterruptedException {
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(9, Decision.remaining(decision));
+        rateLimiter.allowUpTo(9);
+        decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        // 每个槽 100 毫秒
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+        // 按提示的时间重试，下一个槽已经清理过，可以通过
+        TimeUnit.NANOSECONDS.sleep(retryAfterNanos);
+        assertTrue(rateLimiter.allow());
+    }
+
+    @Test
+    public void decide_AfterFullRotation_ReusedSlotShouldBeCleared() throws InterruptedException {
+        // 填满当前槽，等待一整轮后回到同一个槽
+        assertEquals(10, rateLimiter.allowUpTo(10));
+        Thread.sleep(rateLimiter.getWindowSize());
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(9, Decision.remaining(decision));
+    }
+
+    @Test
+    public void allow_ConcurrentAcrossSlotBoundaries_ShouldNotExceedSlotLimits() throws InterruptedException {
+        // 每个槽 5 毫秒、限流 10 个，多个线程持续请求并跨越多个槽
+        SlidingWindowRateLimiter rateLimiter = new SlidingWindowRateLimiter(10, 100, 50);
+        final int THREADS = 8;
+        final AtomicInteger allowedCount = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        long startTime = rateLimiter.getStartTime().get();
+        long endTime = System.currentTimeMillis() + 200;
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(() -> {
+                while (System.currentTimeMillis() < endTime) {
+                    if (rateLimiter.allow()) {
+                        allowedCount.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        // 清零和计数在同一次 CAS 中完成，通过数不会超过经过的槽数 * 每槽限流数
+        long slotsEntered = (System.currentTimeMillis() - startTime) / rateLimiter.getDuration() + 1;
+        assertTrue(allowedCount.get() <= slotsEntered * rateLimiter.getSlotLimit());
+    }
 }
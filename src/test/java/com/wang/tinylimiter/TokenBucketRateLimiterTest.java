@@ -7,8 +7,10 @@ import org.junit.Test;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -119,4 +121,66 @@ public class TokenBucketRateLimiterTest {
         // 这里我们放宽条件，允许一定的误差
         assertTrue("Allowed requests should not exceed the limit", allowedRequests.get() <= 10);
     }
+
+    @Test
+    public void allowUpTo_ShouldGrantAtMostAvailableTokens() {
+        // 令牌桶初始有10个令牌，批量申请 7 个全部放行
+        assertEquals(7, rateLimiter.allowUpTo(7));
+        // 只剩 3 个令牌
+        assertEquals(3, rateLimiter.allowUpTo(7));
+        assertEquals(0, rateLimiter.allowUpTo(7));
+        assertFalse(rateLimiter.allow());
+    }
+
+    @Test
+    public void decide_ShouldReportRemainingAndRetryAfter() {
+        // 第一次申请后还剩 9 个令牌
+        long decision = rateLimiter.decide();
+        assertTrue(Decision.isAllowed(decision));
+        assertEquals(9, Decision.remaining(decision));
+        assertEquals(0, Decision.retryAfterNanos(decision));
+        // 消耗所有令牌
+        rateLimiter.allowUpTo(9);
+        decision = rateLimiter.decide();
+        assertFalse(Decision.isAllowed(decision));
+        assertEquals(0, Decision.remaining(decision));
+        // 每 100ms 生成一个令牌
+        long retryAfterNanos = Decision.retryAfterNanos(decision);
+        assertTrue(retryAfterNanos > 0 && retryAfterNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void allowUpTo_RateAboveOneThousand_ShouldRefillAtRate() throws InterruptedException {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(100000);
+        long beforeDrain = System.nanoTime();
+        assertEquals(100000, rateLimiter.allowUpTo(100000));
+        long afterDrain = System.nanoTime();
+        Thread.sleep(10);
+        long beforeRefill = System.nanoTime();
+        int granted = rateLimiter.allowUpTo(100000);
+        long afterRefill = System.nanoTime();
+        // 每秒 10 万个令牌，补充的数量与经过的时间成正比
+        assertTrue(granted >= (beforeRefill - afterDrain) * 100000 / 1_000_000_000L - 1);
+        assertTrue(granted <= (afterRefill - beforeDrain) * 100000 / 1_000_000_000L + 1);
+    }
+
+    @Test
+    public void allowUpTo_RateNotDividingOneThousand_ShouldNotDrift() throws InterruptedException {
+        // 每秒 300 个令牌，按毫秒取整的间隔是 3ms，会多放行约 11%
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(300);
+        long beforeDrain = System.nanoTime();
+        assertEquals(300, rateLimiter.allowUpTo(300));
+        long afterDrain = System.nanoTime();
+        Thread.sleep(300);
+        long beforeRefill = System.nanoTime();
+        int granted = rateLimiter.allowUpTo(300);
+        long afterRefill = System.nanoTime();
+        assertTrue(granted >= (beforeRefill - afterDrain) * 300 / 1_000_000_000L - 1);
+        assertTrue(granted <= (afterRefill - beforeDrain) * 300 / 1_000_000_000L + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_WithNonPositiveRate_ShouldThrow() {
+        new TokenBucketRateLimiter(0);
+    }
 }